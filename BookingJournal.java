@@ -0,0 +1,809 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append only journal of booking and seat changes kept in
+ * a memory mapped file.
+ *
+ * A journal file belongs to one process at a time: it is locked on open,
+ * and openInDirectory() gives each process its own file in a shared
+ * directory.
+ *
+ * append() returns once the entry is on disk. Entries appended by other
+ * threads while a flush is running are flushed together on the next one
+ * (group commit). The menu appends from a single thread, so there every
+ * change gets a flush of its own.
+ *
+ * A background thread then applies flushed entries to the database, many
+ * entries per transaction. The same transaction stores the last applied
+ * sequence number in the BookingJournalApplied table under the journal's
+ * id, so after a crash only entries the database never committed are
+ * applied again. An entry the database rejects is dropped; awaitResult()
+ * tells the appending caller whether its entry was applied, changed no
+ * rows, or failed.
+ *
+ * File layout: a 64 byte header (magic, version, last applied sequence
+ * number as a local copy, journal id) followed by records of
+ * [body length][CRC32 of body][body]. The body is
+ * [sequence number][event type][statement count][statements].
+ * Once every entry has been applied and the file is full, the records are
+ * cleared and writing starts again after the header.
+ */
+public class BookingJournal {
+
+	/**
+	 * The kinds of change recorded. Stored by ordinal, so only add to the end.
+	 */
+	public enum EventType {
+		ADD_BOOKING,
+		CANCEL_PENDING_BOOKINGS,
+		CHANGE_SEATS,
+		REMOVE_PAYMENT,
+		CLEAR_CANCELLED_BOOKINGS,
+		REMOVE_SHOWS_ON_DATE
+	}
+
+	/**
+	 * One journaled change: the statements in it are applied in the same
+	 * transaction.
+	 */
+	public static class Entry {
+		private final long _seq;
+		private final EventType _type;
+		private final List<BoundStatement> _statements;
+
+		Entry(long seq, EventType type, List<BoundStatement> statements) {
+			this._seq = seq;
+			this._type = type;
+			this._statements = Collections.unmodifiableList(statements);
+		}
+
+		public long getSeq() {
+			return this._seq;
+		}
+
+		public EventType getType() {
+			return this._type;
+		}
+
+		public List<BoundStatement> getStatements() {
+			return this._statements;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + this._seq + " " + this._type + " " + this._statements;
+		}
+	}
+
+	/**
+	 * What applying an entry did: committed and changed rows, committed
+	 * without changing any row, or failed with an error and was dropped.
+	 */
+	public static class Result {
+		public enum Status {
+			APPLIED,
+			NO_ROWS,
+			FAILED
+		}
+
+		private final Status _status;
+		private final String _error;
+
+		Result(Status status, String error) {
+			this._status = status;
+			this._error = error;
+		}
+
+		public Status getStatus() {
+			return this._status;
+		}
+
+		/**
+		 * @return the database error for a FAILED entry, otherwise null
+		 */
+		public String getError() {
+			return this._error;
+		}
+	}
+
+	/**
+	 * Receives entries after they have been committed to the database.
+	 * Entries that failed are not passed on. Called on the journal's apply
+	 * thread, in sequence order.
+	 */
+	public interface Listener {
+		void applied(Entry entry);
+	}
+
+	/**
+	 * Thrown when the journal file is already open, in this process or another.
+	 */
+	public static class LockedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		LockedException(File file) {
+			super("Journal is in use by another process: " + file);
+		}
+	}
+
+	/**
+	 * Opens the connection entries are applied on. Called again whenever
+	 * that connection is lost.
+	 */
+	public interface ConnectionFactory {
+		Connection connect() throws SQLException;
+	}
+
+	private static final int MAGIC = 0x544b4a31;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int APPLIED_SEQ_OFFSET = 8;
+	//two longs of a random UUID, the journal's key in BookingJournalApplied
+	private static final int JOURNAL_ID_OFFSET = 16;
+
+	private static final String CREATE_APPLIED_TABLE =
+		"CREATE TABLE IF NOT EXISTS BookingJournalApplied (journal_id CHAR(36) PRIMARY KEY, applied_seq BIGINT NOT NULL);";
+	private static final String SELECT_APPLIED_SEQ =
+		"SELECT applied_seq FROM BookingJournalApplied WHERE journal_id = ?;";
+	private static final String UPSERT_APPLIED_SEQ =
+		"INSERT INTO BookingJournalApplied (journal_id, applied_seq) VALUES (?, ?) " +
+		"ON CONFLICT (journal_id) DO UPDATE SET applied_seq = EXCLUDED.applied_seq;";
+	//length and CRC in front of each record body
+	private static final int RECORD_HEADER = 8;
+	//most entries applied in one transaction
+	private static final int MAX_BATCH = 256;
+	//wait before retrying when the database is unreachable
+	private static final long RETRY_MS = 1000;
+	//longest append() waits for room in a full file before giving up
+	private static final long APPEND_TIMEOUT_MS = 30000;
+	//most journal files openInDirectory() will look at
+	private static final int MAX_SLOTS = 64;
+
+	//files open in this JVM. Closing a second channel on a locked file can
+	//drop the lock, so the same file is never opened twice here
+	private static final Set<String> OPEN_FILES = new HashSet<String>();
+
+	private final Object _lock = new Object();
+	private final String _path;
+	private final String _journalId;
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _buf;
+	private final ConnectionFactory _factory;
+	//only used by the apply thread, null while the database is unreachable
+	private Connection _connection = null;
+	//last sequence number the database has recorded as applied, read on connect
+	private long _dbAppliedSeq = 0;
+	private final List<Listener> _listeners = new CopyOnWriteArrayList<Listener>();
+
+	//the following are guarded by _lock
+	private final LinkedList<Entry> _unapplied = new LinkedList<Entry>();
+	//entries appended here whose caller still wants the result, and results waiting to be picked up
+	private final Set<Long> _awaited = new HashSet<Long>();
+	private final Map<Long, Result> _results = new HashMap<Long, Result>();
+	private int _writePos;
+	private long _lastSeq;
+	private long _durableSeq;
+	private long _appliedSeq;
+	private boolean _closed = false;
+
+	private final Thread _committer;
+	private final Thread _applier;
+
+	/**
+	 * Method to open a journal, creating the file if needed, and start
+	 * applying any entries a previous run left unapplied.
+	 *
+	 * @param file the journal file
+	 * @param capacity size of the mapped file in bytes, an existing larger file keeps its size
+	 * @param factory opens the connection entries are applied on, which only the journal uses
+	 * @return the opened journal
+	 * @throws BookingJournal.LockedException when the file is already open
+	 * @throws java.io.IOException when the file cannot be mapped or is not a journal
+	 */
+	public static BookingJournal open(File file, int capacity, ConnectionFactory factory) throws IOException {
+		String path = file.getCanonicalPath();
+		synchronized (OPEN_FILES) {
+			if (!OPEN_FILES.add(path)) throw new LockedException(file);
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			FileLock lock = null;
+			try {
+				lock = raf.getChannel().tryLock();
+			} catch (OverlappingFileLockException e) {
+				// held elsewhere in this JVM.
+			}
+			if (lock == null) throw new LockedException(file);
+			BookingJournal journal = new BookingJournal(file, path, raf, capacity, factory);
+			raf = null;
+			return journal;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					// ignored.
+				}
+				synchronized (OPEN_FILES) {
+					OPEN_FILES.remove(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to open the first journal file in a directory that no other
+	 * process holds, then replay what crashed processes left in the others.
+	 *
+	 * @param dir the directory holding the journal files, created if needed
+	 * @param capacity size of a new journal file in bytes
+	 * @param factory opens the connections entries are applied on
+	 * @return the journal this process appends to
+	 * @throws java.io.IOException when no file can be opened
+	 */
+	public static BookingJournal openInDirectory(File dir, int capacity, ConnectionFactory factory) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create journal directory: " + dir);
+		BookingJournal journal = null;
+		for (int slot = 0; journal == null; ++slot) {
+			if (slot == MAX_SLOTS) throw new IOException("All " + MAX_SLOTS + " journal files in " + dir + " are in use");
+			try {
+				journal = open(slotFile(dir, slot), capacity, factory);
+			} catch (LockedException e) {
+				// next slot.
+			}
+		}
+		for (int slot = 0; slot < MAX_SLOTS; ++slot) {
+			File other = slotFile(dir, slot);
+			if (!other.exists() || other.getCanonicalPath().equals(journal._path)) continue;
+			try {
+				//opening replays the unapplied entries and closing waits for them
+				open(other, capacity, factory).close();
+			} catch (LockedException e) {
+				// its process is still running.
+			}
+		}
+		return journal;
+	}
+
+	private static File slotFile(File dir, int slot) {
+		return new File(dir, "booking-" + slot + ".journal");
+	}
+
+	private BookingJournal(File file, String path, RandomAccessFile raf, int capacity, ConnectionFactory factory) throws IOException {
+		this._path = path;
+		this._file = raf;
+		long size = Math.max(this._file.length(), (long) capacity);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Journal file too large: " + file);
+		}
+		this._buf = this._file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		this._factory = factory;
+
+		if (this._buf.getInt(0) != MAGIC) {
+			if (this._buf.getInt(0) != 0) {
+				throw new IOException("Not a booking journal: " + file);
+			}
+			this._buf.putInt(0, MAGIC);
+			this._buf.putInt(4, VERSION);
+			this._buf.putLong(APPLIED_SEQ_OFFSET, 0);
+			this._buf.force();
+		}
+		if (this._buf.getLong(JOURNAL_ID_OFFSET) == 0 && this._buf.getLong(JOURNAL_ID_OFFSET + 8) == 0) {
+			UUID id = UUID.randomUUID();
+			this._buf.putLong(JOURNAL_ID_OFFSET, id.getMostSignificantBits());
+			this._buf.putLong(JOURNAL_ID_OFFSET + 8, id.getLeastSignificantBits());
+			this._buf.force();
+		}
+		this._journalId = new UUID(this._buf.getLong(JOURNAL_ID_OFFSET), this._buf.getLong(JOURNAL_ID_OFFSET + 8)).toString();
+		recover();
+
+		this._committer = new Thread(new Runnable() {
+			public void run() { commitLoop(); }
+		}, "journal-commit");
+		this._applier = new Thread(new Runnable() {
+			public void run() { applyLoop(); }
+		}, "journal-apply");
+		this._committer.setDaemon(true);
+		this._applier.setDaemon(true);
+		this._committer.start();
+		this._applier.start();
+	}
+
+	//finds the end of the valid records and queues the ones not yet applied
+	private void recover() {
+		this._appliedSeq = this._buf.getLong(APPLIED_SEQ_OFFSET);
+		int pos = HEADER_SIZE;
+		long prev = 0;
+		Entry e;
+		//sequence numbers only go up, anything else is left over from before a reset
+		while ((e = decode(pos)) != null && e.getSeq() > prev) {
+			if (e.getSeq() > this._appliedSeq) this._unapplied.add(e);
+			prev = e.getSeq();
+			pos += RECORD_HEADER + this._buf.getInt(pos);
+		}
+		if (pos + 4 <= this._buf.capacity() && this._buf.getInt(pos) != 0) {
+			//torn or stale bytes after the last good record
+			zero(pos, this._buf.capacity());
+			this._buf.force();
+		}
+		this._writePos = pos;
+		this._lastSeq = Math.max(prev, this._appliedSeq);
+		this._durableSeq = this._lastSeq;
+	}
+
+	/**
+	 * Method to add an entry and wait until it is on disk. The entry is
+	 * applied to the database afterwards by the journal's apply thread, and
+	 * awaitResult() tells how that went.
+	 *
+	 * @param type the kind of change
+	 * @param statements the statements to apply, in one transaction
+	 * @return the sequence number of the entry
+	 * @throws java.io.IOException when the journal is closed, the entry does not fit, or the
+	 *         file stays full because the database is not taking entries
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public long append(EventType type, BoundStatement... statements) throws IOException, InterruptedException {
+		int bodyLen = 8 + 1 + 2;
+		for (BoundStatement s : statements) bodyLen += s.encodedSize();
+		int recordLen = RECORD_HEADER + bodyLen;
+		if (HEADER_SIZE + recordLen > this._buf.capacity()) {
+			throw new IOException("Journal entry too large: " + recordLen + " bytes");
+		}
+
+		synchronized (this._lock) {
+			long deadline = System.currentTimeMillis() + APPEND_TIMEOUT_MS;
+			while (this._writePos + recordLen > this._buf.capacity()) {
+				checkOpen();
+				if (this._appliedSeq == this._lastSeq) {
+					zero(HEADER_SIZE, this._writePos);
+					this._writePos = HEADER_SIZE;
+					continue;
+				}
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					throw new IOException("Journal is full, earlier changes are still waiting for the database");
+				}
+				this._lock.wait(left);
+			}
+			checkOpen();
+
+			long seq = ++this._lastSeq;
+			ByteBuffer body = ByteBuffer.allocate(bodyLen);
+			body.putLong(seq);
+			body.put((byte) type.ordinal());
+			body.putShort((short) statements.length);
+			for (BoundStatement s : statements) s.write(body);
+			body.flip();
+
+			CRC32 crc = new CRC32();
+			crc.update(body.array(), 0, bodyLen);
+			ByteBuffer dst = this._buf.duplicate();
+			dst.position(this._writePos + RECORD_HEADER);
+			dst.put(body);
+			this._buf.putInt(this._writePos + 4, (int) crc.getValue());
+			this._buf.putInt(this._writePos, bodyLen);
+			this._writePos += recordLen;
+
+			this._unapplied.add(new Entry(seq, type, new ArrayList<BoundStatement>(Arrays.asList(statements))));
+			this._awaited.add(seq);
+			this._lock.notifyAll();
+			while (this._durableSeq < seq) {
+				this._lock.wait();
+			}
+			return seq;
+		}
+	}
+
+	/**
+	 * Method to wait until an entry has been through the database.
+	 *
+	 * @param seq the sequence number returned by append()
+	 * @param timeoutMs the longest to wait
+	 * @return false if the entry is still waiting for the database
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public boolean awaitApplied(long seq, long timeoutMs) throws InterruptedException {
+		synchronized (this._lock) {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			while (this._appliedSeq < seq) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) return false;
+				this._lock.wait(left);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Method to wait for the outcome of an entry appended by this journal.
+	 * Each result can be taken once. On a timeout the entry is still applied
+	 * later, and a failure is then only reported on standard error.
+	 *
+	 * @param seq the sequence number returned by append()
+	 * @param timeoutMs the longest to wait
+	 * @return the outcome, or null if the database did not get to it in time
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public Result awaitResult(long seq, long timeoutMs) throws InterruptedException {
+		synchronized (this._lock) {
+			if (!awaitApplied(seq, timeoutMs)) {
+				this._awaited.remove(seq);
+				return null;
+			}
+			return this._results.remove(seq);
+		}
+	}
+
+	/**
+	 * @return sequence number of the last entry appended
+	 */
+	public long lastSeq() {
+		synchronized (this._lock) {
+			return this._lastSeq;
+		}
+	}
+
+	/**
+	 * @return sequence number of the last entry applied to the database
+	 */
+	public long appliedSeq() {
+		synchronized (this._lock) {
+			return this._appliedSeq;
+		}
+	}
+
+	/**
+	 * Method to read flushed entries still held in the file, for auditing.
+	 * Entries are cleared once all of them are applied and the file fills up,
+	 * so readers that need every entry should use a Listener instead.
+	 *
+	 * @param afterSeq only entries with a larger sequence number are returned
+	 * @param max the most entries to return
+	 * @return the entries in sequence order
+	 */
+	public List<Entry> read(long afterSeq, int max) {
+		List<Entry> result = new ArrayList<Entry>();
+		synchronized (this._lock) {
+			int pos = HEADER_SIZE;
+			while (pos < this._writePos && result.size() < max) {
+				Entry e = decode(pos);
+				if (e == null || e.getSeq() > this._durableSeq) break;
+				if (e.getSeq() > afterSeq) result.add(e);
+				pos += RECORD_HEADER + this._buf.getInt(pos);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Method to register a listener for applied entries.
+	 *
+	 * @param listener the listener to add
+	 */
+	public void addListener(Listener listener) {
+		this._listeners.add(listener);
+	}
+
+	/**
+	 * Method to stop accepting entries, apply the ones already flushed and
+	 * release the file and the connection. If the database is unreachable the
+	 * remaining entries are left for the next open.
+	 */
+	public void close() {
+		synchronized (this._lock) {
+			this._closed = true;
+			this._lock.notifyAll();
+		}
+		try {
+			this._committer.join();
+			this._applier.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		disconnect();
+		try {
+			this._buf.force();
+			this._file.close();
+		} catch (IOException e) {
+			// ignored.
+		}
+		synchronized (OPEN_FILES) {
+			OPEN_FILES.remove(this._path);
+		}
+	}
+
+	private void commitLoop() {
+		try {
+			while (true) {
+				long target;
+				synchronized (this._lock) {
+					while (this._durableSeq == this._lastSeq) {
+						if (this._closed) return;
+						this._lock.wait();
+					}
+					target = this._lastSeq;
+				}
+				//one flush covers everything appended so far
+				this._buf.force();
+				synchronized (this._lock) {
+					this._durableSeq = target;
+					this._lock.notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// exiting.
+		}
+	}
+
+	private void applyLoop() {
+		try {
+			while (true) {
+				List<Entry> batch = new ArrayList<Entry>();
+				synchronized (this._lock) {
+					while (this._unapplied.isEmpty() || this._unapplied.getFirst().getSeq() > this._durableSeq) {
+						if (this._closed && this._appliedSeq == this._lastSeq) return;
+						this._lock.wait();
+					}
+					for (Entry e : this._unapplied) {
+						if (e.getSeq() > this._durableSeq || batch.size() == MAX_BATCH) break;
+						batch.add(e);
+					}
+				}
+
+				List<Result> results = applyBatch(batch);
+				//on close with the database down the rest stays for the next open to replay
+				if (results == null) return;
+				int done = results.size();
+				if (done == 0) continue;
+				long last = batch.get(done - 1).getSeq();
+				this._buf.putLong(APPLIED_SEQ_OFFSET, last);
+				this._buf.force();
+
+				synchronized (this._lock) {
+					for (int i = 0; i < done; ++i) {
+						Entry e = this._unapplied.removeFirst();
+						Result r = results.get(i);
+						if (this._awaited.remove(e.getSeq())) {
+							this._results.put(e.getSeq(), r);
+						} else if (r.getStatus() == Result.Status.FAILED) {
+							//nobody is waiting on it, replayed or timed out
+							System.err.println("Journal entry " + e + " failed: " + r.getError());
+						}
+					}
+					this._appliedSeq = last;
+					this._lock.notifyAll();
+				}
+				for (int i = 0; i < done; ++i) {
+					if (results.get(i).getStatus() == Result.Status.FAILED) continue;
+					Entry e = batch.get(i);
+					for (Listener l : this._listeners) {
+						try {
+							l.applied(e);
+						} catch (RuntimeException ex) {
+							System.err.println("Journal listener failed on " + e + ": " + ex.getMessage());
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// exiting.
+		}
+	}
+
+	//applies the batch in one transaction, or entry by entry if one of them fails.
+	//returns the results for the entries from the start of the batch that are done
+	//with, or null if the journal was closed before any of them could be applied
+	private List<Result> applyBatch(List<Entry> batch) throws InterruptedException {
+		while (true) {
+			if (connect()) {
+				//committed before a crash, the header just had not caught up
+				List<Result> results = new ArrayList<Result>();
+				while (results.size() < batch.size() && batch.get(results.size()).getSeq() <= this._dbAppliedSeq) {
+					results.add(new Result(Result.Status.APPLIED, null));
+				}
+				if (!results.isEmpty()) return results;
+
+				long last = batch.get(batch.size() - 1).getSeq();
+				try {
+					for (Entry e : batch) results.add(execute(e));
+					markApplied(last);
+					this._connection.commit();
+					this._dbAppliedSeq = last;
+					return results;
+				} catch (SQLException ex) {
+					rollback();
+				}
+				if (connectionValid()) {
+					results = applyEach(batch);
+					if (!results.isEmpty()) return results;
+					//not even the journal position could be written, e.g. disk full
+				} else {
+					//lost the connection, open a new one on the next try
+					disconnect();
+				}
+			}
+			synchronized (this._lock) {
+				if (this._closed) return null;
+				//database unreachable or failing, keep the entries and try again
+				this._lock.wait(RETRY_MS);
+			}
+		}
+	}
+
+	//applies entries one per transaction so a bad one does not hold up the others.
+	//stops early if the journal position cannot be written, leaving the rest to be
+	//retried on a new connection
+	private List<Result> applyEach(List<Entry> batch) {
+		List<Result> results = new ArrayList<Result>();
+		for (Entry e : batch) {
+			Result r;
+			try {
+				r = execute(e);
+				markApplied(e.getSeq());
+				this._connection.commit();
+			} catch (SQLException ex) {
+				rollback();
+				try {
+					//record it as done anyway so it is not retried after a restart
+					markApplied(e.getSeq());
+					this._connection.commit();
+				} catch (SQLException lost) {
+					rollback();
+					disconnect();
+					break;
+				}
+				r = new Result(Result.Status.FAILED, ex.getMessage());
+			}
+			this._dbAppliedSeq = e.getSeq();
+			results.add(r);
+		}
+		return results;
+	}
+
+	//part of the caller's transaction
+	private void markApplied(long seq) throws SQLException {
+		PreparedStatement stmt = new BoundStatement(UPSERT_APPLIED_SEQ, this._journalId, seq).prepare(this._connection);
+		try {
+			stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	//runs the entry's statements in the current transaction, without committing
+	private Result execute(Entry e) throws SQLException {
+		int rows = 0;
+		for (BoundStatement s : e.getStatements()) {
+			PreparedStatement stmt = s.prepare(this._connection);
+			try {
+				rows += stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
+		}
+		return new Result(rows == 0 ? Result.Status.NO_ROWS : Result.Status.APPLIED, null);
+	}
+
+	private void rollback() {
+		try {
+			this._connection.rollback();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	//opens the apply connection if there is none, returns false if the database is unreachable
+	private boolean connect() {
+		if (this._connection != null) return true;
+		try {
+			this._connection = this._factory.connect();
+			this._connection.setAutoCommit(false);
+
+			Statement stmt = this._connection.createStatement();
+			try {
+				stmt.executeUpdate(CREATE_APPLIED_TABLE);
+			} finally {
+				stmt.close();
+			}
+			this._connection.commit();
+
+			PreparedStatement select = new BoundStatement(SELECT_APPLIED_SEQ, this._journalId).prepare(this._connection);
+			try {
+				ResultSet rs = select.executeQuery();
+				this._dbAppliedSeq = rs.next() ? rs.getLong(1) : 0;
+			} finally {
+				select.close();
+			}
+			this._connection.commit();
+			return true;
+		} catch (SQLException e) {
+			disconnect();
+			return false;
+		}
+	}
+
+	private void disconnect() {
+		if (this._connection == null) return;
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+		this._connection = null;
+	}
+
+	private boolean connectionValid() {
+		try {
+			return this._connection.isValid(5);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (this._closed) throw new IOException("Journal is closed");
+	}
+
+	//returns the record at pos, or null if there is no valid record there
+	private Entry decode(int pos) {
+		if (pos + RECORD_HEADER > this._buf.capacity()) return null;
+		int len = this._buf.getInt(pos);
+		if (len <= 0 || len > this._buf.capacity() - pos - RECORD_HEADER) return null;
+
+		ByteBuffer body = this._buf.duplicate();
+		body.position(pos + RECORD_HEADER);
+		body.limit(pos + RECORD_HEADER + len);
+		body = body.slice();
+
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		if ((int) crc.getValue() != this._buf.getInt(pos + 4)) return null;
+
+		try {
+			long seq = body.getLong();
+			int type = body.get();
+			if (type < 0 || type >= EventType.values().length) return null;
+			int count = body.getShort();
+			List<BoundStatement> statements = new ArrayList<BoundStatement>();
+			for (int i = 0; i < count; ++i) statements.add(BoundStatement.read(body));
+			return new Entry(seq, EventType.values()[type], statements);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private void zero(int from, int to) {
+		byte[] zeros = new byte[8192];
+		ByteBuffer dst = this._buf.duplicate();
+		dst.position(from);
+		while (dst.position() < to) {
+			dst.put(zeros, 0, Math.min(zeros.length, to - dst.position()));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class holds an SQL string with '?' placeholders together with the
+ * values bound to them. Values may be Integer, Long, String or null.
+ *
+ * Strings are bound untyped, the same as the quoted literals they replace,
+ * so the server parses dates and times according to the column type.
+ */
+public class BoundStatement {
+
+	private static final byte NULL_PARAM = 0;
+	private static final byte INT_PARAM = 1;
+	private static final byte LONG_PARAM = 2;
+	private static final byte STRING_PARAM = 3;
+
+	private final String _sql;
+	private final Object[] _params;
+
+	public BoundStatement(String sql, Object... params) {
+		for (Object p : params) {
+			if (p != null && !(p instanceof Integer) && !(p instanceof Long) && !(p instanceof String)) {
+				throw new IllegalArgumentException("Unsupported parameter type: " + p.getClass().getName());
+			}
+		}
+		this._sql = sql;
+		this._params = params.clone();
+	}
+
+	public String getSql() {
+		return this._sql;
+	}
+
+	public Object[] getParams() {
+		return this._params.clone();
+	}
+
+	/**
+	 * Method to prepare this statement on a connection and bind its values.
+	 * The caller closes the returned statement.
+	 *
+	 * @param connection the connection to prepare on
+	 * @return the prepared statement with all values bound
+	 * @throws java.sql.SQLException when preparing or binding failed
+	 */
+	public PreparedStatement prepare(Connection connection) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(this._sql);
+		for (int i = 0; i < this._params.length; ++i) {
+			Object p = this._params[i];
+			if (p == null) stmt.setNull(i + 1, Types.NULL);
+			else if (p instanceof Integer) stmt.setInt(i + 1, (Integer) p);
+			else if (p instanceof Long) stmt.setLong(i + 1, (Long) p);
+			else stmt.setObject(i + 1, p, Types.OTHER);
+		}
+		return stmt;
+	}
+
+	/**
+	 * @return the number of bytes write() uses for this statement
+	 */
+	public int encodedSize() {
+		int size = 4 + this._sql.getBytes(StandardCharsets.UTF_8).length + 2;
+		for (Object p : this._params) {
+			size += 1;
+			if (p instanceof Integer) size += 4;
+			else if (p instanceof Long) size += 8;
+			else if (p instanceof String) size += 4 + ((String) p).getBytes(StandardCharsets.UTF_8).length;
+		}
+		return size;
+	}
+
+	/**
+	 * Method to write this statement in binary form at the buffer position.
+	 *
+	 * @param buf the buffer to write to
+	 */
+	public void write(ByteBuffer buf) {
+		putString(buf, this._sql);
+		buf.putShort((short) this._params.length);
+		for (Object p : this._params) {
+			if (p == null) {
+				buf.put(NULL_PARAM);
+			} else if (p instanceof Integer) {
+				buf.put(INT_PARAM);
+				buf.putInt((Integer) p);
+			} else if (p instanceof Long) {
+				buf.put(LONG_PARAM);
+				buf.putLong((Long) p);
+			} else {
+				buf.put(STRING_PARAM);
+				putString(buf, (String) p);
+			}
+		}
+	}
+
+	/**
+	 * Method to read a statement written by write() at the buffer position.
+	 *
+	 * @param buf the buffer to read from
+	 * @return the statement read
+	 */
+	public static BoundStatement read(ByteBuffer buf) {
+		String sql = getString(buf);
+		Object[] params = new Object[buf.getShort()];
+		for (int i = 0; i < params.length; ++i) {
+			byte tag = buf.get();
+			switch (tag) {
+				case NULL_PARAM: params[i] = null; break;
+				case INT_PARAM: params[i] = buf.getInt(); break;
+				case LONG_PARAM: params[i] = buf.getLong(); break;
+				case STRING_PARAM: params[i] = getString(buf); break;
+				default: throw new IllegalArgumentException("Unknown parameter tag: " + tag);
+			}
+		}
+		return new BoundStatement(sql, params);
+	}
+
+	private static void putString(ByteBuffer buf, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this._sql);
+		if (this._params.length > 0) {
+			sb.append(" [");
+			for (int i = 0; i < this._params.length; ++i) {
+				if (i > 0) sb.append(", ");
+				sb.append(this._params[i]);
+			}
+			sb.append("]");
+		}
+		return sb.toString();
+	}
+}
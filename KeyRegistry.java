@@ -0,0 +1,156 @@
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class keeps the user emails, show ids and movie ids that bookings and
+ * shows refer to in memory, so that keys known to exist are accepted without
+ * a trip to the DB. Emails are held in a hash set, ids in primitive int sets.
+ *
+ * The registry is loaded at startup and other sessions keep inserting, so
+ * a key it does not know may still exist. Callers confirm a miss with the
+ * DB and add the key when it is found.
+ */
+public class KeyRegistry {
+
+	private final Set<String> _emails = new HashSet<String>();
+	private final IntHashSet _showIds = new IntHashSet();
+	private final IntHashSet _movieIds = new IntHashSet();
+
+	private KeyRegistry() {
+	}
+
+	/**
+	 * Method to build the registry from the current contents of the DB.
+	 *
+	 * @param connection the connection to read the keys from
+	 * @return the loaded registry
+	 * @throws java.sql.SQLException when failed to read the keys
+	 */
+	public static KeyRegistry load(Connection connection) throws SQLException {
+		Statement stmt = connection.createStatement ();
+		try {
+			KeyRegistry registry = new KeyRegistry();
+			ResultSet rs = stmt.executeQuery ("SELECT email FROM Users;");
+			while (rs.next()) registry._emails.add(rs.getString(1));
+			rs = stmt.executeQuery ("SELECT sid FROM Shows;");
+			while (rs.next()) registry._showIds.add(rs.getInt(1));
+			rs = stmt.executeQuery ("SELECT mvid FROM Movies;");
+			while (rs.next()) registry._movieIds.add(rs.getInt(1));
+			return registry;
+		} finally {
+			stmt.close ();
+		}
+	}
+
+	/**
+	 * @param email a user email
+	 * @return true if the user exists, false if it was not seen by this registry
+	 */
+	public synchronized boolean hasUser(String email) {
+		return this._emails.contains(email);
+	}
+
+	/**
+	 * @param sid a show id
+	 * @return true if the show exists, false if it was not seen by this registry
+	 */
+	public synchronized boolean hasShow(int sid) {
+		return this._showIds.contains(sid);
+	}
+
+	/**
+	 * @param mvid a movie id
+	 * @return true if the movie exists, false if it was not seen by this registry
+	 */
+	public synchronized boolean hasMovie(int mvid) {
+		return this._movieIds.contains(mvid);
+	}
+
+	/**
+	 * Method to record a user that was added or found in the DB.
+	 *
+	 * @param email the user's email
+	 */
+	public synchronized void addUser(String email) {
+		this._emails.add(email);
+	}
+
+	/**
+	 * Method to record a show that was added or found in the DB.
+	 *
+	 * @param sid the show id
+	 */
+	public synchronized void addShow(int sid) {
+		this._showIds.add(sid);
+	}
+
+	/**
+	 * Method to record a movie that was added or found in the DB.
+	 *
+	 * @param mvid the movie id
+	 */
+	public synchronized void addMovie(int mvid) {
+		this._movieIds.add(mvid);
+	}
+
+	/**
+	 * A set of ints using open addressing with linear probing, so no boxing
+	 * and one array per set.
+	 */
+	static class IntHashSet {
+		//0 marks an empty slot, so the key 0 is tracked on its own
+		private int[] _table = new int[16];
+		private int _size = 0;
+		private boolean _hasZero = false;
+
+		boolean contains(int key) {
+			if (key == 0) return this._hasZero;
+			int mask = this._table.length - 1;
+			for (int i = mix(key) & mask; this._table[i] != 0; i = (i + 1) & mask) {
+				if (this._table[i] == key) return true;
+			}
+			return false;
+		}
+
+		void add(int key) {
+			if (key == 0) {
+				this._hasZero = true;
+				return;
+			}
+			if (insert(this._table, key)) {
+				++this._size;
+				//keep the table at most half full
+				if (2 * this._size > this._table.length) grow();
+			}
+		}
+
+		private void grow() {
+			int[] bigger = new int[this._table.length * 2];
+			for (int key : this._table) {
+				if (key != 0) insert(bigger, key);
+			}
+			this._table = bigger;
+		}
+
+		private static boolean insert(int[] table, int key) {
+			int mask = table.length - 1;
+			int i = mix(key) & mask;
+			while (table[i] != 0) {
+				if (table[i] == key) return false;
+				i = (i + 1) & mask;
+			}
+			table[i] = key;
+			return true;
+		}
+
+		//spreads sequential ids across the table
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
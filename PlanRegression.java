@@ -0,0 +1,289 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks the query plans of the 14 menu operations against a
+ * recorded baseline, using a local database loaded with plan_schema.sql and
+ * then plan_seed.sql. The seed is fixed, so the costs in
+ * plan_baseline.properties carry over to any database loaded the same way
+ * on the same PostgreSQL major version.
+ *
+ * To set up the database:
+ *   createdb plancheck
+ *   psql -d plancheck -f plan_schema.sql -f plan_seed.sql
+ *
+ * The cost of each operation's SQL from Queries comes from EXPLAIN (FORMAT
+ * JSON), which runs nothing. A check fails when the planner's total cost
+ * grows past the allowed factor over the baseline. Execution times depend
+ * on the machine and are only measured with -DplanCheck.times=true, or
+ * when the baseline has one for the operation. They come from EXPLAIN
+ * (ANALYZE) in a transaction that is rolled back, and the dead rows this
+ * leaves change later costs, so reload the seed after a timed run.
+ *
+ * Run with --record to write a new baseline after an intended change. Run
+ * with --compare to put the costs of the pre-rewrite IN (SELECT ...) forms
+ * next to the current SQL.
+ */
+public class PlanRegression {
+
+	//how much worse than the baseline a plan may get
+	private static final double COST_FACTOR = Double.parseDouble(System.getProperty("planCheck.costFactor", "1.5"));
+	private static final double TIME_FACTOR = Double.parseDouble(System.getProperty("planCheck.timeFactor", "2.0"));
+	//absorbs timer noise on queries that take about a millisecond
+	private static final double TIME_SLACK_MS = Double.parseDouble(System.getProperty("planCheck.timeSlackMs", "5"));
+	//execution time is the median of this many runs
+	private static final int RUNS = 5;
+	private static final boolean TIMES = Boolean.getBoolean("planCheck.times");
+
+	private static final Pattern TOTAL_COST = Pattern.compile("\"Total Cost\"\\s*:\\s*([0-9.eE+-]+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("\"Execution Time\"\\s*:\\s*([0-9.eE+-]+)");
+
+	private static class Check {
+		final String name;
+		final BoundStatement statement;
+
+		Check(String name, BoundStatement statement) {
+			this.name = name;
+			this.statement = statement;
+		}
+	}
+
+	/**
+	 * @param args <dbname> <port> <user> [--record | --compare]
+	 */
+	public static void main (String[] args) {
+		boolean record = args.length == 4 && args[3].equals("--record");
+		boolean compare = args.length == 4 && args[3].equals("--compare");
+		if (args.length != 3 && !record && !compare) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + PlanRegression.class.getName () +
+					" <dbname> <port> <user> [--record | --compare]");
+			System.exit(2);
+		}
+
+		File baselineFile = new File(System.getProperty("planCheck.baseline", "plan_baseline.properties"));
+		Connection connection = null;
+		int failures = 0;
+		try {
+			Class.forName("org.postgresql.Driver");
+			String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+			connection = DriverManager.getConnection(url, args[2], "");
+			connection.setAutoCommit(false);
+
+			if (compare) {
+				compare(connection);
+				return;
+			}
+
+			Properties baseline = new Properties();
+			if (!record) {
+				FileReader reader = new FileReader(baselineFile);
+				baseline.load(reader);
+				reader.close();
+			}
+
+			System.out.println("operation\tcost\tbaseline\tms\tbaseline\tresult");
+			for (Check check : checks(new Params(connection))) {
+				double cost = cost(connection, check.statement);
+
+				if (record) {
+					baseline.setProperty(check.name + ".cost", String.valueOf(cost));
+					String ms = "-";
+					if (TIMES) {
+						ms = String.valueOf(medianTime(connection, check.statement));
+						baseline.setProperty(check.name + ".ms", ms);
+					}
+					System.out.println(check.name + "\t" + cost + "\t-\t" + ms + "\t-\trecorded");
+					continue;
+				}
+
+				String baseCost = baseline.getProperty(check.name + ".cost");
+				//times are only checked where the baseline has one
+				String baseMs = baseline.getProperty(check.name + ".ms");
+				double ms = TIMES || baseMs != null ? medianTime(connection, check.statement) : Double.NaN;
+				String result;
+				if (baseCost == null) {
+					result = "FAIL (no baseline, run with --record)";
+				} else if (cost > Double.parseDouble(baseCost) * COST_FACTOR) {
+					result = "FAIL (cost)";
+				} else if (baseMs != null && ms > Double.parseDouble(baseMs) * TIME_FACTOR + TIME_SLACK_MS) {
+					result = "FAIL (time)";
+				} else {
+					result = "ok";
+				}
+				if (!result.equals("ok")) ++failures;
+				System.out.println(check.name + "\t" + cost + "\t" + baseCost + "\t" + (Double.isNaN(ms) ? "-" : String.valueOf(ms)) + "\t" + (baseMs == null ? "-" : baseMs) + "\t" + result);
+			}
+
+			if (record) {
+				FileWriter writer = new FileWriter(baselineFile);
+				String version = "PostgreSQL " + connection.getMetaData().getDatabaseProductVersion();
+				baseline.store(writer, (TIMES ? "Plan cost and median execution time (ms) per operation" : "Plan cost per operation") + " on plan_seed.sql, " + version);
+				writer.close();
+				System.out.println("Baseline written to " + baselineFile);
+			} else {
+				System.out.println(failures == 0 ? "All plans within baseline" : failures + " plan regression(s)");
+			}
+		} catch (Exception e) {
+			System.err.println("Plan check failed: " + e.getMessage());
+			failures = 1;
+		} finally {
+			try {
+				if (connection != null) connection.close ();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	//prints the cost and time of each rewritten operation before and after the rewrite
+	private static void compare(Connection connection) throws SQLException {
+		Params p = new Params(connection);
+		List<Check> current = checks(p);
+		System.out.println("operation\tIN cost\tcost" + (TIMES ? "\tIN ms\tms" : ""));
+		for (Check before : legacyChecks(p)) {
+			for (Check after : current) {
+				if (!after.name.equals(before.name)) continue;
+				String line = before.name + "\t" + cost(connection, before.statement) + "\t" + cost(connection, after.statement);
+				if (TIMES) line += "\t" + medianTime(connection, before.statement) + "\t" + medianTime(connection, after.statement);
+				System.out.println(line);
+			}
+		}
+	}
+
+	//the planner's total cost, without running the statement
+	private static double cost(Connection connection, BoundStatement statement) throws SQLException {
+		//the first cost in the output is the top node's
+		return number(TOTAL_COST, explain(connection, "EXPLAIN (FORMAT JSON) ", statement));
+	}
+
+	//median execution time in ms
+	private static double medianTime(Connection connection, BoundStatement statement) throws SQLException {
+		double[] times = new double[RUNS];
+		for (int run = 0; run < RUNS; ++run) {
+			times[run] = number(EXECUTION_TIME, explain(connection, "EXPLAIN (ANALYZE, FORMAT JSON) ", statement));
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	private static String explain(Connection connection, String prefix, BoundStatement statement) throws SQLException {
+		PreparedStatement stmt = new BoundStatement(prefix + statement.getSql(), statement.getParams()).prepare(connection);
+		try {
+			ResultSet rs = stmt.executeQuery ();
+			StringBuilder plan = new StringBuilder();
+			while (rs.next()) plan.append(rs.getString(1));
+			return plan.toString();
+		} finally {
+			stmt.close ();
+			//ANALYZE really runs the statement, undo any writes
+			connection.rollback();
+		}
+	}
+
+	private static double number(Pattern pattern, CharSequence plan) throws SQLException {
+		Matcher m = pattern.matcher(plan);
+		if (!m.find()) throw new SQLException("Unexpected EXPLAIN output: " + plan);
+		return Double.parseDouble(m.group(1));
+	}
+
+	//parameters taken from rows that exist in the database
+	private static class Params {
+		final int sid;
+		final int mvid;
+		final String sdate;
+		final String sttime;
+		final int bid;
+		final String email;
+		final String cname;
+		final String title;
+		final List<String> seats;
+		final int newBid;
+		final int newSid;
+		final int newMvid;
+
+		Params(Connection connection) throws SQLException {
+			List<String> show = row(connection, "SELECT sid, mvid, sdate, sttime FROM Shows ORDER BY sid LIMIT 1;", 4);
+			this.sid = Integer.parseInt(show.get(0));
+			this.mvid = Integer.parseInt(show.get(1));
+			this.sdate = show.get(2);
+			this.sttime = show.get(3);
+
+			List<String> booking = row(connection, "SELECT bid, email FROM Bookings ORDER BY bid LIMIT 1;", 2);
+			this.bid = Integer.parseInt(booking.get(0));
+			this.email = booking.get(1);
+
+			List<String> playing = row(connection, "SELECT C.cname, M.title FROM Cinemas C INNER JOIN Theaters T ON T.cid = C.cid INNER JOIN Plays P ON P.tid = T.tid INNER JOIN Shows S ON S.sid = P.sid INNER JOIN Movies M ON M.mvid = S.mvid ORDER BY C.cid, S.sid LIMIT 1;", 2);
+			this.cname = playing.get(0);
+			this.title = playing.get(1);
+
+			//a booked seat and a free seat at the same price
+			this.seats = row(connection, "SELECT A.bid, A.ssid, B.ssid FROM ShowSeats A INNER JOIN ShowSeats B ON B.price = A.price AND B.bid IS NULL WHERE A.bid IS NOT NULL ORDER BY A.ssid, B.ssid LIMIT 1;", 3);
+
+			this.newBid = Integer.parseInt(row(connection, "SELECT COALESCE(max(bid), 0) + 1 FROM Bookings;", 1).get(0));
+			this.newSid = Integer.parseInt(row(connection, "SELECT COALESCE(max(sid), 0) + 1 FROM Shows;", 1).get(0));
+			this.newMvid = Integer.parseInt(row(connection, "SELECT COALESCE(max(mvid), 0) + 1 FROM Movies;", 1).get(0));
+		}
+	}
+
+	//the operations as the menu runs them
+	private static List<Check> checks(Params p) {
+		List<Check> checks = new ArrayList<Check>();
+		checks.add(new Check("1.addUser", Queries.addUser("Plan", "Check", "plan.check@example.com", 5550100, "0")));
+		checks.add(new Check("2.addBooking", Queries.addBooking(p.newBid, "pending", p.sdate + " " + p.sttime, 1, p.sid, p.email)));
+		checks.add(new Check("3.addMovie", Queries.addMovie(p.newMvid, "Plan Check", "2019-01-01", "USA", "", 7200, "English", "Drama")));
+		checks.add(new Check("3.addShow", Queries.addShow(p.newSid, p.mvid, p.sdate, p.sttime, p.sttime)));
+		checks.add(new Check("4.cancelPendingBookings", Queries.cancelPendingBookings()));
+		checks.add(new Check("5.changeSeats", Queries.changeSeats(Integer.parseInt(p.seats.get(0)), Integer.parseInt(p.seats.get(1)), Integer.parseInt(p.seats.get(2)))));
+		checks.add(new Check("6.removePayment", Queries.removePayment(p.bid)));
+		checks.add(new Check("7.clearCancelledPayments", Queries.clearCancelledPayments()));
+		checks.add(new Check("7.clearCancelledBookings", Queries.clearCancelledBookings()));
+		checks.add(new Check("8.cancelBookingsForShowsOnDate", Queries.cancelBookingsForShowsOnDate(p.sdate, p.cname)));
+		checks.add(new Check("9.theatersPlayingShow", Queries.theatersPlayingShow(p.sid)));
+		checks.add(new Check("10.showsStartingAt", Queries.showsStartingAt(p.sdate, p.sttime)));
+		checks.add(new Check("11.movieTitlesContainingLoveReleasedAfter2010", Queries.movieTitlesContainingLoveReleasedAfter2010()));
+		checks.add(new Check("12.usersWithPendingBooking", Queries.usersWithPendingBooking()));
+		checks.add(new Check("13.movieAndShowInfoAtCinemaInDateRange", Queries.movieAndShowInfoAtCinemaInDateRange(p.title, p.cname, p.sdate, p.sdate)));
+		checks.add(new Check("14.bookingInfoForUser", Queries.bookingInfoForUser(p.email)));
+		return checks;
+	}
+
+	//the operations rewritten from nested IN (SELECT ...), in the form the menu used to send
+	private static List<Check> legacyChecks(Params p) {
+		List<Check> checks = new ArrayList<Check>();
+		checks.add(new Check("7.clearCancelledPayments", new BoundStatement("DELETE FROM Payments WHERE bid IN (select bid from bookings where status = 'cancelled');")));
+		checks.add(new Check("8.cancelBookingsForShowsOnDate", new BoundStatement("UPDATE Bookings SET status = 'cancelled' where sid IN (select sid from shows where sdate = ? AND sid IN (select sid from plays where tid IN (select tid from theaters where cid IN (select cid from cinemas where cname = ?))));", p.sdate, p.cname)));
+		checks.add(new Check("9.theatersPlayingShow", new BoundStatement("SELECT * FROM Theaters WHERE tid IN (SELECT tid FROM CinemaSeats WHERE csid IN (SELECT csid FROM ShowSeats WHERE sid = ?));", p.sid)));
+		checks.add(new Check("12.usersWithPendingBooking", new BoundStatement("SELECT fname, lname, email FROM Users WHERE email IN (SELECT email FROM Bookings WHERE status = 'pending');")));
+		return checks;
+	}
+
+	//first row of the query as strings
+	private static List<String> row(Connection connection, String query, int columns) throws SQLException {
+		Statement stmt = connection.createStatement ();
+		try {
+			ResultSet rs = stmt.executeQuery (query);
+			if (!rs.next()) throw new SQLException("No rows for " + query + " Load plan_seed.sql first.");
+			List<String> record = new ArrayList<String>();
+			for (int i = 1; i <= columns; ++i) record.add(rs.getString(i));
+			return record;
+		} finally {
+			stmt.close ();
+			connection.rollback();
+		}
+	}
+}
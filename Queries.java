@@ -0,0 +1,112 @@
+/**
+ * This class builds the SQL for every menu operation as a BoundStatement,
+ * with user input bound as parameters rather than pasted into the string.
+ *
+ * Lookups through related tables are written as EXISTS or joins instead of
+ * nested IN (SELECT ...) chains. On PostgreSQL 16 this is for readability:
+ * the planner already turns those IN chains into the same semi joins, and
+ * PlanRegression --compare shows equal costs on plan_seed.sql.
+ */
+public class Queries {
+
+	private Queries() {
+	}
+
+	public static BoundStatement addUser(String fname, String lname, String email, int phone, String pwd) {//1
+		return new BoundStatement("INSERT INTO Users (fname, lname, email, phone, pwd) VALUES (?, ?, ?, ?, ?);",
+			fname, lname, email, phone, pwd);
+	}
+
+	public static BoundStatement addBooking(int bid, String status, String bdatetime, int seats, int sid, String email) {//2
+		return new BoundStatement("INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (?, ?, ?, ?, ?, ?);",
+			bid, status, bdatetime, seats, sid, email);
+	}
+
+	public static BoundStatement addMovie(int mvid, String title, String rdate, String country, String description, int duration, String lang, String genre) {//3
+		return new BoundStatement("INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (?, ?, ?, ?, ?, ?, ?, ?);",
+			mvid, title, rdate, country, description, duration, lang, genre);
+	}
+
+	public static BoundStatement addShow(int sid, int mvid, String sdate, String sttime, String edtime) {//3
+		return new BoundStatement("INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (?, ?, ?, ?, ?);",
+			sid, mvid, sdate, sttime, edtime);
+	}
+
+	public static BoundStatement cancelPendingBookings() {//4
+		return new BoundStatement("UPDATE Bookings SET status = 'cancelled' WHERE status = 'pending';");
+	}
+
+	/**
+	 * The new seat is taken only if it is free and costs the same as the
+	 * original, and the original is released only if the new seat was taken.
+	 * One statement so the journal can apply it as a unit.
+	 */
+	public static BoundStatement changeSeats(int bid, int originalSsid, int newSsid) {//5
+		return new BoundStatement("WITH taken AS (UPDATE ShowSeats SET bid = ? WHERE ssid = ? AND bid IS NULL AND price = (SELECT price FROM ShowSeats WHERE ssid = ? AND bid = ?) RETURNING ssid) " +
+			"UPDATE ShowSeats SET bid = NULL WHERE ssid = ? AND bid = ? AND EXISTS (SELECT 1 FROM taken);",
+			bid, newSsid, originalSsid, bid, originalSsid, bid);
+	}
+
+	public static BoundStatement removePayment(int bid) {//6
+		return new BoundStatement("UPDATE Bookings SET status = 'cancelled' WHERE bid = ?;", bid);
+	}
+
+	public static BoundStatement clearCancelledPayments() {//7
+		return new BoundStatement("DELETE FROM Payments P WHERE EXISTS (SELECT 1 FROM Bookings B WHERE B.bid = P.bid AND B.status = 'cancelled');");
+	}
+
+	public static BoundStatement clearCancelledBookings() {//7
+		return new BoundStatement("DELETE FROM Bookings WHERE status = 'cancelled';");
+	}
+
+	public static BoundStatement cancelBookingsForShowsOnDate(String sdate, String cname) {//8
+		return new BoundStatement("UPDATE Bookings B SET status = 'cancelled' WHERE EXISTS (" +
+			"SELECT 1 FROM Shows S " +
+			"INNER JOIN Plays P ON P.sid = S.sid " +
+			"INNER JOIN Theaters T ON T.tid = P.tid " +
+			"INNER JOIN Cinemas C ON C.cid = T.cid " +
+			"WHERE S.sid = B.sid AND S.sdate = ? AND C.cname = ?);",
+			sdate, cname);
+	}
+
+	public static BoundStatement theatersPlayingShow(int sid) {//9
+		return new BoundStatement("SELECT T.* FROM Theaters T WHERE EXISTS (" +
+			"SELECT 1 FROM CinemaSeats CS INNER JOIN ShowSeats SS ON SS.csid = CS.csid " +
+			"WHERE CS.tid = T.tid AND SS.sid = ?);",
+			sid);
+	}
+
+	public static BoundStatement showsStartingAt(String sdate, String sttime) {//10
+		return new BoundStatement("SELECT * FROM Shows WHERE sdate = ? AND sttime = ?;", sdate, sttime);
+	}
+
+	public static BoundStatement movieTitlesContainingLoveReleasedAfter2010() {//11
+		return new BoundStatement("SELECT title FROM Movies WHERE (title LIKE '%Love%') AND rdate > '2010-12-31';");
+	}
+
+	public static BoundStatement usersWithPendingBooking() {//12
+		return new BoundStatement("SELECT U.fname, U.lname, U.email FROM Users U WHERE EXISTS (" +
+			"SELECT 1 FROM Bookings B WHERE B.email = U.email AND B.status = 'pending');");
+	}
+
+	public static BoundStatement movieAndShowInfoAtCinemaInDateRange(String title, String cname, String fromDate, String toDate) {//13
+		return new BoundStatement("SELECT cname, title, duration, sdate, sttime FROM Theaters " +
+			"INNER JOIN Plays ON Plays.tid = Theaters.tid " +
+			"INNER JOIN Shows ON Shows.sid = Plays.sid " +
+			"INNER JOIN Movies ON Movies.mvid = Shows.mvid " +
+			"INNER JOIN Cinemas ON Cinemas.cid = Theaters.cid " +
+			"WHERE title = ? AND cname = ? AND sdate >= ? AND sdate <= ?;",
+			title, cname, fromDate, toDate);
+	}
+
+	public static BoundStatement bookingInfoForUser(String email) {//14
+		return new BoundStatement("SELECT title AS \"Movie Title\", sdate AS \"Show Date\", sttime AS \"Start Time\", tname AS \"Theater Name\", csid \"Cinema Seat Number\" FROM Bookings " +
+			"INNER JOIN Shows ON Bookings.sid = Shows.sid " +
+			"INNER JOIN Movies ON Shows.mvid = Movies.mvid " +
+			"INNER JOIN ShowSeats ON Bookings.sid = ShowSeats.sid " +
+			"INNER JOIN Plays ON Bookings.sid = Plays.sid " +
+			"INNER JOIN Theaters ON Plays.tid = Theaters.tid " +
+			"WHERE Bookings.email = ?;",
+			email);
+	}
+}
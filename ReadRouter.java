@@ -0,0 +1,231 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * This class routes read only queries to a set of replica databases and
+ * keeps everything else on the primary connection.
+ *
+ * Replicas are picked round robin. A replica is skipped while its replay lag
+ * is above the configured limit, while it is unreachable, and while it has
+ * not yet replayed the last write made by this session (read-your-writes).
+ * When no replica qualifies the primary connection is used.
+ */
+public class ReadRouter {
+
+	//how long a lag check stays valid before the replica is asked again
+	private static final long LAG_CHECK_INTERVAL_MS = 1000;
+
+	//how long an unreachable replica is left alone before reconnecting
+	private static final long RETRY_DOWN_MS = 30000;
+
+	//0 when the replica has replayed up to the given primary position, otherwise seconds since
+	//the last replayed commit. Compared with the primary, not with what the replica received,
+	//so a stalled or disconnected WAL receiver shows up as growing lag
+	private static final String LAG_QUERY =
+		"SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+		"WHEN pg_last_wal_replay_lsn() >= CAST(? AS pg_lsn) THEN 0 " +
+		"ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END;";
+
+	private static final String REPLAYED_QUERY = "SELECT pg_last_wal_replay_lsn() >= CAST(? AS pg_lsn);";
+
+	private static class Replica {
+		final String url;
+		Connection connection = null;
+		double lagSeconds = 0;
+		long checkedAt = 0;
+		long downUntil = 0;
+		//last write position this replica is known to have replayed
+		String confirmedLsn = null;
+
+		Replica(String url) {
+			this.url = url;
+		}
+	}
+
+	private final Connection _primary;
+	private final String _user;
+	private final String _passwd;
+	private final double _maxLagSeconds;
+	private final List<Replica> _replicas = new ArrayList<Replica>();
+	private int _next = 0;
+
+	//primary WAL position right after this session's last write, null if it has not written
+	private String _writeLsn = null;
+
+	/**
+	 * @param primary the connection used for writes and as the read fallback
+	 * @param replicaUrls comma separated JDBC URLs of the replicas, may be null or empty
+	 * @param user user name for the replicas
+	 * @param passwd password for the replicas
+	 * @param maxLagSeconds replicas lagging more than this are not read from
+	 */
+	public ReadRouter(Connection primary, String replicaUrls, String user, String passwd, double maxLagSeconds) {
+		this._primary = primary;
+		this._user = user;
+		this._passwd = passwd;
+		this._maxLagSeconds = maxLagSeconds;
+		if (replicaUrls != null) {
+			for (String url : replicaUrls.split(",")) {
+				if (!url.trim().isEmpty()) {
+					this._replicas.add(new Replica(url.trim()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of configured replicas
+	 */
+	public int replicaCount() {
+		return this._replicas.size();
+	}
+
+	/**
+	 * Method to record that this session wrote to the primary. Reads are kept
+	 * off any replica until it has replayed up to this point.
+	 */
+	public void noteWrite() {
+		if (this._replicas.isEmpty()) return;
+		try {
+			Statement stmt = this._primary.createStatement ();
+			ResultSet rs = stmt.executeQuery ("SELECT pg_current_wal_lsn();");
+			if (rs.next()) this._writeLsn = rs.getString(1);
+			stmt.close ();
+		} catch (SQLException e) {
+			//position unknown, so no replica can be trusted with this session's reads
+			this._writeLsn = "FFFFFFFF/FFFFFFFF";
+		}
+	}
+
+	/**
+	 * Method to pick the connection a read only query should run on.
+	 *
+	 * @return a usable replica connection, or the primary connection
+	 */
+	public Connection readConnection() {
+		int n = this._replicas.size();
+		String primaryLsn = null;
+		for (int i = 0; i < n; ++i) {
+			int idx = (this._next + i) % n;
+			Replica r = this._replicas.get(idx);
+			long now = System.currentTimeMillis();
+			if (now < r.downUntil) continue;
+			//decided once here, so the lag query never runs without the primary's position
+			boolean checkLag = r.connection == null || now - r.checkedAt >= LAG_CHECK_INTERVAL_MS;
+			if (checkLag && primaryLsn == null) {
+				primaryLsn = primaryLsn();
+				//without the primary's position no lag can be trusted
+				if (primaryLsn == null) return this._primary;
+			}
+			if (usable(r, checkLag ? primaryLsn : null, now)) {
+				this._next = (idx + 1) % n;
+				return r.connection;
+			}
+		}
+		return this._primary;
+	}
+
+	/**
+	 * Method to take a replica out of rotation after a query on it lost its
+	 * connection. Other errors, such as a badly typed date, are the query's
+	 * fault and leave the replica in.
+	 *
+	 * @param connection the connection the failed query ran on
+	 * @param e the error the query failed with
+	 * @return true if a replica was taken out and the query should be retried on the primary
+	 */
+	public boolean reportFailure(Connection connection, SQLException e) {
+		//SQLSTATE class 08 is connection exception
+		if (e.getSQLState() == null || !e.getSQLState().startsWith("08")) return false;
+		for (Replica r : this._replicas) {
+			if (r.connection == connection) {
+				markDown(r);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//current WAL position of the primary, or null if it could not be read
+	private String primaryLsn() {
+		try {
+			Statement stmt = this._primary.createStatement ();
+			ResultSet rs = stmt.executeQuery ("SELECT pg_current_wal_lsn();");
+			String lsn = rs.next() ? rs.getString(1) : null;
+			stmt.close ();
+			return lsn;
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	//primaryLsn is given when the replica's lag is due to be checked, otherwise null
+	private boolean usable(Replica r, String primaryLsn, long now) {
+		try {
+			if (r.connection == null) {
+				r.connection = DriverManager.getConnection(r.url, this._user, this._passwd);
+				r.connection.setReadOnly(true);
+			}
+			if (primaryLsn != null) {
+				PreparedStatement stmt = r.connection.prepareStatement (LAG_QUERY);
+				stmt.setString(1, primaryLsn);
+				ResultSet rs = stmt.executeQuery ();
+				r.lagSeconds = rs.next() ? rs.getDouble(1) : Double.MAX_VALUE;
+				//no replayed commit to measure from
+				if (rs.wasNull()) r.lagSeconds = Double.MAX_VALUE;
+				stmt.close ();
+				r.checkedAt = now;
+			}
+			if (r.lagSeconds > this._maxLagSeconds) return false;
+			if (this._writeLsn != null && !this._writeLsn.equals(r.confirmedLsn)) {
+				PreparedStatement stmt = r.connection.prepareStatement (REPLAYED_QUERY);
+				stmt.setString(1, this._writeLsn);
+				ResultSet rs = stmt.executeQuery ();
+				boolean replayed = rs.next() && rs.getBoolean(1);
+				stmt.close ();
+				if (!replayed) return false;
+				r.confirmedLsn = this._writeLsn;
+			}
+			return true;
+		} catch (SQLException e) {
+			markDown(r);
+			return false;
+		}
+	}
+
+	private void markDown(Replica r) {
+		System.err.println("Replica unavailable, reading from primary: " + r.url);
+		r.downUntil = System.currentTimeMillis() + RETRY_DOWN_MS;
+		r.confirmedLsn = null;
+		if (r.connection != null) {
+			try {
+				r.connection.close ();
+			} catch (SQLException e) {
+				// ignored.
+			}
+			r.connection = null;
+		}
+	}
+
+	/**
+	 * Method to close the replica connections that are open.
+	 */
+	public void cleanup() {
+		for (Replica r : this._replicas) {
+			if (r.connection != null) {
+				try {
+					r.connection.close ();
+				} catch (SQLException e) {
+					// ignored.
+				}
+				r.connection = null;
+			}
+		}
+	}
+}
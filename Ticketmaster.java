@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,6 +22,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -78,6 +80,17 @@ public class Ticketmaster{
 
 	//reference to physical database connection
 	private Connection _connection = null;
+	//sends the read only listings to replicas when some are configured
+	private ReadRouter _router = null;
+	//booking changes are journaled and applied on their own connection
+	private BookingJournal _journal = null;
+	//last journal entry this session appended, and the last one the router was told about
+	private long _journalSeq = 0;
+	private long _notedSeq = 0;
+	//how long to wait for the DB to apply a journaled change before moving on
+	private static final long JOURNAL_WAIT_MS = 10000;
+	//user emails, show ids and movie ids known to exist
+	private KeyRegistry _keys = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public Ticketmaster(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -89,6 +102,29 @@ public class Ticketmaster{
 			
 			// obtain a physical connection
 	        this._connection = DriverManager.getConnection(url, user, passwd);
+
+			// replicas are given as -Dticketmaster.replicas=<jdbc url>,<jdbc url>,...
+			String replicas = System.getProperty("ticketmaster.replicas");
+			double maxLag = Double.parseDouble(System.getProperty("ticketmaster.replicaMaxLag", "5"));
+			this._router = new ReadRouter(this._connection, replicas, user, passwd, maxLag);
+			if (this._router.replicaCount() > 0) {
+				System.out.println("Reading from " + this._router.replicaCount() + " replica(s)");
+			}
+
+			this._keys = KeyRegistry.load(this._connection);
+
+			// each running client gets its own booking journal file in ./journal, set -Dticketmaster.journalDir to move it
+			File journalDir = new File(System.getProperty("ticketmaster.journalDir", "journal"));
+			int journalSize = Integer.parseInt(System.getProperty("ticketmaster.journalSize", String.valueOf(16 * 1024 * 1024)));
+			this._journal = BookingJournal.openInDirectory(journalDir, journalSize, new BookingJournal.ConnectionFactory() {
+				public Connection connect() throws SQLException {
+					return DriverManager.getConnection(url, user, passwd);
+				}
+			});
+			long unapplied = this._journal.lastSeq() - this._journal.appliedSeq();
+			if (unapplied > 0) {
+				System.out.println("Replaying " + unapplied + " journaled booking change(s)");
+			}
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -113,23 +149,117 @@ public class Ticketmaster{
 
 		// close the instruction
 	    stmt.close ();
+
+		// keep this session's reads on the primary until replicas have the write
+		this._router.noteWrite();
 	}//end executeUpdate
 
+	/**
+	 * Method to execute an update SQL statement with bound values.
+	 * 
+	 * @param sql the statement and its values
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public void executeUpdate (BoundStatement sql) throws SQLException { 
+		PreparedStatement stmt = sql.prepare(this._connection);
+		try {
+			stmt.executeUpdate ();
+		} finally {
+			stmt.close ();
+		}
+
+		// keep this session's reads on the primary until replicas have the write
+		this._router.noteWrite();
+	}//end executeUpdate
+
+	/**
+	 * Method to journal a booking change and wait for the DB to apply it.
+	 * If the DB does not get to it in time the change stays journaled and is
+	 * applied once the DB is back.
+	 *
+	 * @param type the kind of booking change
+	 * @param statements the statements making up the change, applied in one transaction
+	 * @return false if the change did not update any row
+	 * @throws java.io.IOException when the change could not be journaled
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 * @throws java.sql.SQLException when the DB rejected the change
+	 * */
+	public boolean executeJournaledUpdate (BookingJournal.EventType type, BoundStatement... statements) throws IOException, InterruptedException, SQLException {
+		this._journalSeq = this._journal.append(type, statements);
+		BookingJournal.Result result = this._journal.awaitResult(this._journalSeq, JOURNAL_WAIT_MS);
+		if (result == null) {
+			System.out.println("DB not reachable, the change is saved and will be applied when it is back");
+			return true;
+		}
+		if (result.getStatus() == BookingJournal.Result.Status.FAILED) {
+			throw new SQLException(result.getError());
+		}
+		return result.getStatus() == BookingJournal.Result.Status.APPLIED;
+	}//end executeJournaledUpdate
+
+	/**
+	 * Method to wait until this session's journaled changes are in the DB,
+	 * so that reads see them.
+	 *
+	 * @throws java.sql.SQLException when the changes are not in the DB yet or interrupted while waiting
+	 */
+	private void syncJournal () throws SQLException {
+		if (this._journalSeq <= this._notedSeq) return;
+		try {
+			if (!this._journal.awaitApplied(this._journalSeq, JOURNAL_WAIT_MS)) {
+				throw new SQLException("Journaled changes not applied yet, DB not reachable");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for journaled changes", e);
+		}
+		this._router.noteWrite();
+		this._notedSeq = this._journalSeq;
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out. The query must be read only since it may be sent to a
+	 * replica instead of the primary.
 	 * 
 	 * @param query the input query string
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		return executeQueryAndPrintResult(new BoundStatement(query));
+	}
+
+	/**
+	 * Method to execute a read only query with bound values and output the
+	 * results to standard out, as executeQueryAndPrintResult(String) does.
+	 * 
+	 * @param query the query and its values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (BoundStatement query) throws SQLException {
+		syncJournal();
+		Connection connection = this._router.readConnection();
 
 		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+		PreparedStatement stmt = null;
+		ResultSet rs;
+		try {
+			stmt = query.prepare(connection);
+			rs = stmt.executeQuery ();
+		} catch (SQLException e) {
+			try {
+				if (stmt != null) stmt.close ();
+			} catch (SQLException ignored) {
+				// ignored.
+			}
+			if (!this._router.reportFailure(connection, e)) throw e;
+			//the replica went away, ask the primary instead
+			stmt = query.prepare(this._connection);
+			rs = stmt.executeQuery ();
+		}
 
 		/*
 		 *  obtains the metadata object for the returned result set.  The metadata
@@ -168,6 +298,8 @@ public class Ticketmaster{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
+		syncJournal();
+
 		//creates a statement object 
 		Statement stmt = this._connection.createStatement (); 
 		
@@ -204,6 +336,8 @@ public class Ticketmaster{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
+		syncJournal();
+
 		//creates a statement object
 		Statement stmt = this._connection.createStatement ();
 
@@ -220,6 +354,64 @@ public class Ticketmaster{
 		return rowCount;
 	}
 	
+	/**
+	 * Method to check whether a row with the given column value exists. The
+	 * DB stops at the first match, using the column's index when it has one.
+	 * 
+	 * @param table the table to look in, never user input
+	 * @param column the column to match, never user input
+	 * @param value the value to look for
+	 * @return true if at least one row matches
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String table, String column, Object value) throws SQLException {
+		BoundStatement query = new BoundStatement(String.format("SELECT EXISTS (SELECT 1 FROM %s WHERE %s = ?);", table, column), value);
+		PreparedStatement stmt = query.prepare(this._connection);
+		try {
+			ResultSet rs = stmt.executeQuery ();
+			return rs.next() && rs.getBoolean(1);
+		} finally {
+			stmt.close ();
+		}
+	}
+
+	/**
+	 * @param email a user email
+	 * @return true if a user has this email
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean userExists (String email) throws SQLException {
+		if (this._keys.hasUser(email)) return true;
+		//added by another session since the registry was loaded
+		if (!exists("Users", "email", email)) return false;
+		this._keys.addUser(email);
+		return true;
+	}
+
+	/**
+	 * @param sid a show id
+	 * @return true if the show exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean showExists (int sid) throws SQLException {
+		if (this._keys.hasShow(sid)) return true;
+		if (!exists("Shows", "sid", sid)) return false;
+		this._keys.addShow(sid);
+		return true;
+	}
+
+	/**
+	 * @param mvid a movie id
+	 * @return true if the movie exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean movieExists (int mvid) throws SQLException {
+		if (this._keys.hasMovie(mvid)) return true;
+		if (!exists("Movies", "mvid", mvid)) return false;
+		this._keys.addMovie(mvid);
+		return true;
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
@@ -248,6 +440,12 @@ public class Ticketmaster{
 	 */
 	public void cleanup(){
 		try{
+			if (this._journal != null){
+				this._journal.close ();
+			}//end if
+			if (this._router != null){
+				this._router.cleanup ();
+			}//end if
 			if (this._connection != null){
 				this._connection.close ();
 			}//end if
@@ -414,9 +612,10 @@ public class Ticketmaster{
 		password = getString("Input password: ");
 		password = hashPassword(password);
 
-		String query = String.format("INSERT INTO Users (fname, lname, email, phone, pwd) VALUES ('%s', '%s', '%s', %d, '%s');", firstname, lastname, email, phone, password);
+		BoundStatement query = Queries.addUser(firstname, lastname, email, phone, password);
 		try {
 			esql.executeUpdate(query);
+			esql._keys.addUser(email);
 		} catch (Exception e) {
 			//some error message 
 			System.out.println("Did not update DB");
@@ -441,12 +640,26 @@ public class Ticketmaster{
 		showId = getInt("Input show ID: ");
 
 		String email;
-		//if an email is non-existant the database will not update
 		email = getString("Input email: ");
 
-		String query = String.format("INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (%d, '%s', '%s', %d, %d, '%s');", bookingId, status, dateTime, numSeats, showId, email);
+		//reject unknown shows and users here rather than after the insert is journaled
 		try {
-			esql.executeUpdate(query);
+			if (!esql.showExists(showId)) {
+				System.out.println("Show ID does not exist");
+				return;
+			}
+			if (!esql.userExists(email)) {
+				System.out.println("No user with that email");
+				return;
+			}
+		} catch (Exception e) {
+			System.out.println("Did not update DB");
+			return;
+		}
+
+		BoundStatement query = Queries.addBooking(bookingId, status, dateTime, numSeats, showId, email);
+		try {
+			esql.executeJournaledUpdate(BookingJournal.EventType.ADD_BOOKING, query);
 		} catch (Exception a) {
 			System.out.println("Did not update DB");
 		}
@@ -459,13 +672,9 @@ public class Ticketmaster{
 		int movieId;
 		movieId = getInt("Input the movie ID: ");
 
-		//check if movie ID exists
-		String queryCheck = String.format("SELECT * FROM Movies WHERE mvid=%d;", movieId);
-
 		//check if movie ID exists
 		try{
-			int i =	esql.executeQuery(queryCheck); //if >= 1 then we should
-			if(i == 0) {
+			if(!esql.movieExists(movieId)) {
 				throw new Exception("Movie not found");
 			}
 			System.out.println("Movie ID exists!!!");
@@ -493,11 +702,12 @@ public class Ticketmaster{
 			String genre;
 			genre = getString("Input genre of movie: ");
 
-			String movieQuery;
-			movieQuery = String.format("INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (%d, '%s', '%s', '%s', '%s', %d, '%s', '%s');", movieId, title, releaseDate, country, description, duration, language, genre);
+			BoundStatement movieQuery;
+			movieQuery = Queries.addMovie(movieId, title, releaseDate, country, description, duration, language, genre);
 
 			try {
 				esql.executeUpdate(movieQuery);
+				esql._keys.addMovie(movieId);
 			} catch (Exception a) {
 				System.out.println("Did not update DB");		//idk why it wouldnt add the movie if the pk was prespecified
 			}
@@ -516,11 +726,12 @@ public class Ticketmaster{
 		String endTime;
 		endTime = getString("Input the end time: ");
 
-		String query;
-		query = String.format("INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (%d, %d, '%s', '%s', '%s');", showId, movieId, showDate, startTime, endTime);
+		BoundStatement query;
+		query = Queries.addShow(showId, movieId, showDate, startTime, endTime);
 
 		try {
 			esql.executeUpdate(query);
+			esql._keys.addShow(showId);
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
@@ -528,43 +739,32 @@ public class Ticketmaster{
 
 	public static void CancelPendingBookings(Ticketmaster esql){//4
 
-		String query;
-		query = String.format("UPDATE Bookings SET status = 'cancelled' WHERE status = 'pending';");
+		BoundStatement query;
+		query = Queries.cancelPendingBookings();
 		try {
-			esql.executeUpdate(query);
+			esql.executeJournaledUpdate(BookingJournal.EventType.CANCEL_PENDING_BOOKINGS, query);
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
 	}
 
 
-	// STILL NEEDS ATTENTION ---------------------------------------------------------
+	//needs testing
 	public static void ChangeSeatsForBooking(Ticketmaster esql) throws Exception{//5
-		String bookingId;
-		String showSeatIDOriginal;
-		String showSeatIDAvailable;
-
-		bookingId = getString("Enter your booking ID: ");
-		showSeatIDOriginal = getString("Enter the show seat ID that you would like to change: ");
-		showSeatIDAvailable = getString("Enter the show seat ID that you would like to change to(make sure it is the same price): ");
-
-		//first check if the seat is avaible
-		String query1;
-		String query2;
-		String query3;
-		query1 = String.format("UPDATE ShowSeats SET bid = %s WHERE ssid = %s AND bid IS NULL;", bookingId, showSeatIDAvailable);// if not found the execute should return 0
-		query2 = String.format("SELECT price FROM ShowSeats WHERE bid = %s AND ssid = %s;", bookingId, showSeatIDOriginal);		//this will be used to compare price
-		String seatPrice;
+		int bookingId;
+		int showSeatIDOriginal;
+		int showSeatIDAvailable;
+
+		bookingId = getInt("Enter your booking ID: ");
+		showSeatIDOriginal = getInt("Enter the show seat ID that you would like to change: ");
+		showSeatIDAvailable = getInt("Enter the show seat ID that you would like to change to(make sure it is the same price): ");
+
+		BoundStatement query;
+		query = Queries.changeSeats(bookingId, showSeatIDOriginal, showSeatIDAvailable);
 		try {
-			int check = esql.executeQuery(query1); //if there are 0 rows updated then throw exception
-			if(check == 0){
+			if (!esql.executeJournaledUpdate(BookingJournal.EventType.CHANGE_SEATS, query)) {
 				throw new Exception("Seat is not availble or not found");
 			}
-			else {
-				seatPrice = (esql.executeQueryAndReturnResult(query2).get(0)).get(0);
-				query3 = String.format("UPDATE ShowSeats SET bid = NULL WHERE ssid = %s AND bid = %s AND price = %s;", showSeatIDOriginal, bookingId, seatPrice);	//then remove the original seat
-				esql.executeQuery(query3);
-			}
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
@@ -576,23 +776,22 @@ public class Ticketmaster{
 		int bookingId;
 		bookingId = getInt("Input booking ID to be cancelled: ");
 
-		String query;
-		query = String.format("UPDATE Bookings SET status = 'cancelled' WHERE bid = %d;", bookingId);
+		BoundStatement query;
+		query = Queries.removePayment(bookingId);
 		try {
-			esql.executeUpdate(query);
+			esql.executeJournaledUpdate(BookingJournal.EventType.REMOVE_PAYMENT, query);
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
 	}
 	
 	public static void ClearCancelledBookings(Ticketmaster esql){//7
-		String query;
-		query = String.format("DELETE FROM Payments WHERE bid IN (select bid from bookings where status = 'cancelled');");
-		String query1;
-		query1 = String.format("DELETE FROM Bookings WHERE status = 'cancelled';");
+		BoundStatement query;
+		query = Queries.clearCancelledPayments();
+		BoundStatement query1;
+		query1 = Queries.clearCancelledBookings();
 		try {
-			esql.executeUpdate(query);
-			esql.executeUpdate(query1);
+			esql.executeJournaledUpdate(BookingJournal.EventType.CLEAR_CANCELLED_BOOKINGS, query, query1);
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
@@ -610,10 +809,10 @@ public class Ticketmaster{
 		//this format also works (somehow it translates in sql)
 		//select * from bookings where bdatetime > '2/2/2019 00:00:00-08' AND bdatetime < '2/2/2019 23:59:59-08';
 
-		String query;
-		query = String.format("UPDATE Bookings SET status = 'cancelled' where sid IN (select sid from shows where sdate='%s' AND sid IN (select sid from plays where tid IN (select tid from theaters where cid IN (select cid from cinemas where cname = '%s'))));", date, cinemaName);
+		BoundStatement query;
+		query = Queries.cancelBookingsForShowsOnDate(date, cinemaName);
 		try {
-			esql.executeUpdate(query);
+			esql.executeJournaledUpdate(BookingJournal.EventType.REMOVE_SHOWS_ON_DATE, query);
 		} catch (Exception e) {
 			System.out.println("Did not update DB");
 		}
@@ -628,8 +827,8 @@ public class Ticketmaster{
 
 		//SELECT * FROM Theaters WHERE tid IN (SELECT tid FROM CinemaSeats WHERE csid IN (SELECT csid FROM ShowSeats WHERE sid = 1));
 
-		String query;
-		query = String.format("SELECT * FROM Theaters WHERE tid IN (SELECT tid FROM CinemaSeats WHERE csid IN (SELECT csid FROM ShowSeats WHERE sid = %d));", showId);
+		BoundStatement query;
+		query = Queries.theatersPlayingShow(showId);
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -646,8 +845,8 @@ public class Ticketmaster{
 		String time;
 		time = getString("Input a time in 24hr format (HH:MM): ");
 
-		String query;
-		query = String.format("SELECT * FROM Shows WHERE sdate = '%s' AND sttime = '%s';", date, time);
+		BoundStatement query;
+		query = Queries.showsStartingAt(date, time);
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -659,8 +858,8 @@ public class Ticketmaster{
 	public static void ListMovieTitlesContainingLoveReleasedAfter2010(Ticketmaster esql){//11
 
 		//select * from movies where (title like '%Love%') AND rdate > '2010-12-31'; non-inclusive 2010
-		String query;
-		query = "SELECT title FROM Movies WHERE (title LIKE '%Love%') AND rdate > '2010-12-31';";
+		BoundStatement query;
+		query = Queries.movieTitlesContainingLoveReleasedAfter2010();
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -672,8 +871,8 @@ public class Ticketmaster{
 	public static void ListUsersWithPendingBooking(Ticketmaster esql){//12
 
 		//SELECT fname, lname, email FROM Users WHERE email IN (SELECT email FROM Bookings WHERE status = 'pending');
-		String query;
-		query = String.format("SELECT fname, lname, email FROM Users WHERE email IN (SELECT email FROM Bookings WHERE status = 'pending');");
+		BoundStatement query;
+		query = Queries.usersWithPendingBooking();
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -694,9 +893,9 @@ public class Ticketmaster{
 		movieName = getString("Input movie name: ");
 		cinemaName = getString("Input cinema name: ");
 		
-		String query;
+		BoundStatement query;
 		//SELECT cname, title, duration, sdate, sttime FROM Theaters INNER JOIN Plays ON Plays.tid = Theaters.tid INNER JOIN Shows ON Shows.sid = Plays.sid INNER JOIN Movies ON Movies.mvid = Shows.mvid INNER JOIN  Cinemas ON Cinemas.cid = Theaters.cid WHERE title = 'Aquaman' AND cname = 'AMC' AND sdate >= '2019-02-01' AND sdate <= '2019-02-07';
-		query = String.format("SELECT cname, title, duration, sdate, sttime FROM Theaters INNER JOIN Plays ON Plays.tid = Theaters.tid INNER JOIN Shows ON Shows.sid = Plays.sid INNER JOIN Movies ON Movies.mvid = Shows.mvid INNER JOIN  Cinemas ON Cinemas.cid = Theaters.cid WHERE title = '%s' AND cname = '%s' AND sdate >= '%s' AND sdate <= '%s';", movieName, cinemaName, date1, date2);
+		query = Queries.movieAndShowInfoAtCinemaInDateRange(movieName, cinemaName, date1, date2);
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -712,10 +911,10 @@ public class Ticketmaster{
 		//get names
 		emailaddress = getString("Input user's email address: ");
 		
-		String query;
+		BoundStatement query;
 		
 		// display all specicfied users info
-		query = String.format("SELECT title AS \"Movie Title\", sdate AS \"Show Date\", sttime AS \"Start Time\", tname AS \"Theater Name\", csid \"Cinema Seat Number\" FROM Bookings INNER JOIN Shows ON Bookings.sid=Shows.sid INNER JOIN Movies ON Shows.mvid=Movies.mvid INNER JOIN ShowSeats ON Bookings.sid=ShowSeats.sid INNER JOIN Plays ON Bookings.sid=Plays.sid INNER JOIN Theaters ON Plays.tid=Theaters.tid WHERE bookings.email = '%s';", emailaddress);
+		query = Queries.bookingInfoForUser(emailaddress);
 		try {
 			esql.executeQueryAndPrintResult(query);
 		} catch (Exception e) {
@@ -0,0 +1,101 @@
+-- Schema for the plan regression database (see PlanRegression.java).
+-- Load this, then plan_seed.sql, into an empty database.
+
+DROP TABLE IF EXISTS Payments, ShowSeats, Bookings, Users, Plays, Shows, Movies, CinemaSeats, Theaters, Cinemas, Cities CASCADE;
+
+CREATE TABLE Cities (
+	city_id INTEGER NOT NULL,
+	city_name VARCHAR(32) NOT NULL,
+	city_state CHAR(2) NOT NULL,
+	zip_code CHAR(5) NOT NULL,
+	PRIMARY KEY (city_id)
+);
+
+CREATE TABLE Cinemas (
+	cid INTEGER NOT NULL,
+	cname VARCHAR(64) NOT NULL,
+	tnum INTEGER NOT NULL,
+	city_id INTEGER NOT NULL REFERENCES Cities (city_id),
+	PRIMARY KEY (cid)
+);
+
+CREATE TABLE Theaters (
+	tid INTEGER NOT NULL,
+	cid INTEGER NOT NULL REFERENCES Cinemas (cid),
+	tname VARCHAR(32) NOT NULL,
+	tseats INTEGER NOT NULL,
+	PRIMARY KEY (tid)
+);
+
+CREATE TABLE CinemaSeats (
+	csid INTEGER NOT NULL,
+	tid INTEGER NOT NULL REFERENCES Theaters (tid),
+	sno INTEGER NOT NULL,
+	stype VARCHAR(16) NOT NULL,
+	PRIMARY KEY (csid)
+);
+
+CREATE TABLE Movies (
+	mvid INTEGER NOT NULL,
+	title VARCHAR(128) NOT NULL,
+	rdate DATE NOT NULL,
+	country VARCHAR(64) NOT NULL,
+	description TEXT,
+	duration INTEGER,
+	lang VARCHAR(16),
+	genre VARCHAR(16),
+	PRIMARY KEY (mvid)
+);
+
+CREATE TABLE Shows (
+	sid INTEGER NOT NULL,
+	mvid INTEGER NOT NULL REFERENCES Movies (mvid),
+	sdate DATE NOT NULL,
+	sttime TIME NOT NULL,
+	edtime TIME NOT NULL,
+	PRIMARY KEY (sid)
+);
+
+CREATE TABLE Plays (
+	sid INTEGER NOT NULL REFERENCES Shows (sid),
+	tid INTEGER NOT NULL REFERENCES Theaters (tid),
+	PRIMARY KEY (sid, tid)
+);
+
+CREATE TABLE Users (
+	email VARCHAR(64) NOT NULL,
+	lname VARCHAR(32) NOT NULL,
+	fname VARCHAR(32) NOT NULL,
+	phone BIGINT,
+	pwd VARCHAR(64) NOT NULL,
+	PRIMARY KEY (email)
+);
+
+CREATE TABLE Bookings (
+	bid INTEGER NOT NULL,
+	status VARCHAR(16) NOT NULL,
+	bdatetime TIMESTAMP WITH TIME ZONE NOT NULL,
+	seats INTEGER NOT NULL,
+	sid INTEGER NOT NULL REFERENCES Shows (sid),
+	email VARCHAR(64) NOT NULL REFERENCES Users (email),
+	PRIMARY KEY (bid)
+);
+
+CREATE TABLE ShowSeats (
+	ssid INTEGER NOT NULL,
+	sid INTEGER NOT NULL REFERENCES Shows (sid),
+	csid INTEGER NOT NULL REFERENCES CinemaSeats (csid),
+	bid INTEGER REFERENCES Bookings (bid),
+	price NUMERIC(6,2) NOT NULL,
+	PRIMARY KEY (ssid)
+);
+
+CREATE TABLE Payments (
+	pid INTEGER NOT NULL,
+	bid INTEGER NOT NULL REFERENCES Bookings (bid),
+	pmethod VARCHAR(16) NOT NULL,
+	pdatetime TIMESTAMP WITH TIME ZONE NOT NULL,
+	amount NUMERIC(8,2) NOT NULL,
+	trid INTEGER,
+	PRIMARY KEY (pid)
+);
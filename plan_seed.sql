@@ -0,0 +1,75 @@
+-- Fixed data for the plan regression database (see PlanRegression.java).
+-- Every value is computed from the row number, so each load gives the same
+-- rows. No table has more than 30000 rows, so ANALYZE reads all of them and
+-- the planner statistics, and with them the plan costs, are the same too.
+
+INSERT INTO Cities (city_id, city_name, city_state, zip_code)
+SELECT i, 'City ' || i, (ARRAY['CA', 'NV', 'AZ', 'OR'])[i % 4 + 1], lpad((90000 + i)::text, 5, '0')
+FROM generate_series(1, 20) AS i;
+
+INSERT INTO Cinemas (cid, cname, tnum, city_id)
+SELECT i, 'Cinema ' || i, 5, i % 20 + 1
+FROM generate_series(1, 40) AS i;
+
+--5 theaters per cinema
+INSERT INTO Theaters (tid, cid, tname, tseats)
+SELECT i, (i - 1) / 5 + 1, 'Theater ' || i, 50
+FROM generate_series(1, 200) AS i;
+
+--50 seats per theater
+INSERT INTO CinemaSeats (csid, tid, sno, stype)
+SELECT i, (i - 1) / 50 + 1, (i - 1) % 50 + 1, CASE WHEN (i - 1) % 50 < 10 THEN 'premium' ELSE 'standard' END
+FROM generate_series(1, 10000) AS i;
+
+--every 20th title contains 'Love'
+INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre)
+SELECT i,
+	CASE WHEN i % 20 = 0 THEN 'Love Story ' || i ELSE 'Movie ' || i END,
+	DATE '2000-01-01' + (i * 37) % 7300,
+	(ARRAY['USA', 'UK', 'France', 'Japan'])[i % 4 + 1],
+	'Description of movie ' || i,
+	5400 + (i % 60) * 60,
+	(ARRAY['English', 'French', 'Japanese'])[i % 3 + 1],
+	(ARRAY['Drama', 'Comedy', 'Action', 'Romance', 'Horror'])[i % 5 + 1]
+FROM generate_series(1, 2000) AS i;
+
+--90 days of shows, starting on the hour between 10:00 and 21:00
+INSERT INTO Shows (sid, mvid, sdate, sttime, edtime)
+SELECT i, (i * 7) % 2000 + 1, DATE '2019-01-01' + i % 90, TIME '10:00' + (i % 12) * INTERVAL '1 hour', TIME '12:00' + (i % 12) * INTERVAL '1 hour'
+FROM generate_series(1, 6000) AS i;
+
+INSERT INTO Plays (sid, tid)
+SELECT i, i % 200 + 1
+FROM generate_series(1, 6000) AS i;
+
+INSERT INTO Users (email, lname, fname, phone, pwd)
+SELECT 'user' || i || '@example.com', 'Last' || i, 'First' || i, 5550000000 + i, md5('pwd' || i)
+FROM generate_series(1, 5000) AS i;
+
+--60% confirmed, 20% pending, 20% cancelled
+INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email)
+SELECT i,
+	CASE WHEN i % 10 < 6 THEN 'confirmed' WHEN i % 10 < 8 THEN 'pending' ELSE 'cancelled' END,
+	TIMESTAMP WITH TIME ZONE '2018-12-01 00:00:00-08' + i * INTERVAL '7 minutes',
+	i % 3 + 1,
+	(i * 13) % 6000 + 1,
+	'user' || ((i * 7) % 5000 + 1) || '@example.com'
+FROM generate_series(1, 10000) AS i;
+
+--5 seats per show, taken from the seats of the theater playing it
+INSERT INTO ShowSeats (ssid, sid, csid, bid, price)
+SELECT i, (i - 1) / 5 + 1, (((i - 1) / 5 + 1) % 200) * 50 + (i - 1) % 5 + 1, NULL, 10 + (i % 3) * 5
+FROM generate_series(1, 30000) AS i;
+
+--each booking that is not cancelled holds the next free seat of its show, while there is one
+UPDATE ShowSeats SS SET bid = B.bid
+FROM (SELECT bid, sid, row_number() OVER (PARTITION BY sid ORDER BY bid) AS n FROM Bookings WHERE status <> 'cancelled') B
+WHERE SS.sid = B.sid AND SS.ssid = (B.sid - 1) * 5 + B.n AND B.n <= 5;
+
+--confirmed and cancelled bookings were paid
+INSERT INTO Payments (pid, bid, pmethod, pdatetime, amount, trid)
+SELECT bid, bid, (ARRAY['card', 'cash', 'paypal'])[bid % 3 + 1], bdatetime, 12.50 * seats, 100000 + bid
+FROM Bookings
+WHERE status <> 'pending';
+
+VACUUM ANALYZE;